@@ -1,5 +1,7 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * A class to represent a binary search tree.
@@ -345,6 +347,57 @@ public class BinarySearchTree<E extends Comparable<E>>
         toList(result, node.right);
     }
 
+    /**
+     * Return up to limit items greater than after, in ascending order.
+     * Calling this repeatedly, passing the last item returned as after,
+     * copies the tree in pieces so that no single call walks all of it.
+     *
+     * @param after The item to start after, or null to start at the
+     *              smallest item
+     * @param limit The largest number of items to return
+     * @return The items found; fewer than limit only if no more remain
+     */
+    public List<E> toList(E after, int limit) {
+        List<E> result = new ArrayList<E>();
+        for (Node<E> node : nodesAfter(after, limit)) {
+            result.add(node.data);
+        }
+        return result;
+    }
+
+    /**
+     * Return up to limit nodes whose data is greater than after, in
+     * ascending order, using an explicit stack rather than recursion.
+     *
+     * @param after The item to start after, or null for the smallest
+     * @param limit The largest number of nodes to return
+     * @return The nodes found
+     */
+    protected List<Node<E>> nodesAfter(E after, int limit) {
+        List<Node<E>> result = new ArrayList<Node<E>>();
+        Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+        // Push the path down to the first node greater than after.
+        Node<E> node = root;
+        while (node != null) {
+            if (after == null || node.data.compareTo(after) > 0) {
+                stack.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        while (!stack.isEmpty() && result.size() < limit) {
+            node = stack.pop();
+            result.add(node);
+            node = node.right;
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
     /**
      * A toString method that returns an inOrder traversal of the content of the tree.
      *
@@ -354,5 +407,46 @@ public class BinarySearchTree<E extends Comparable<E>>
     public String inOrderToString() {
         return super.inorderToString();
     }
+
+    /**
+     * Return an immutable copy of this tree stored as an array in
+     * Eytzinger order. Later changes to this tree do not affect the copy.
+     *
+     * @return A FrozenSearchTree holding the items of this tree
+     */
+    public FrozenSearchTree<E> freeze() {
+        return new FrozenSearchTree<E>(toList());
+    }
+
+    /**
+     * Build a binary search tree of minimum height holding the given items.
+     *
+     * @param sorted The items in strictly ascending order
+     * @return A new balanced tree
+     */
+    protected static <E extends Comparable<E>> BinarySearchTree<E> buildBalanced(List<E> sorted) {
+        BinarySearchTree<E> result = new BinarySearchTree<E>();
+        result.root = buildBalanced(sorted, 0, sorted.size() - 1);
+        return result;
+    }
+
+    /**
+     * Recursive buildBalanced method.
+     *
+     * @param sorted The items in strictly ascending order
+     * @param low    The index of the first item of the subtree
+     * @param high   The index of the last item of the subtree
+     * @return The root of a balanced subtree holding sorted[low..high]
+     */
+    private static <E> Node<E> buildBalanced(List<E> sorted, int low, int high) {
+        if (low > high) {
+            return null;
+        }
+        int mid = (low + high) >>> 1;
+        Node<E> localRoot = new Node<E>(sorted.get(mid));
+        localRoot.left = buildBalanced(sorted, low, mid - 1);
+        localRoot.right = buildBalanced(sorted, mid + 1, high);
+        return localRoot;
+    }
 } // end of class
 
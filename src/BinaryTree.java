@@ -9,6 +9,11 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Class for a binary tree that stores type E objects.
@@ -292,7 +297,7 @@ public class BinaryTree<E> implements Serializable {
 
     // returns the number of leaves in tree
     public int leaves() {
-        return leaves(root);
+        return survey(false, false).getLeaves();
     }
 
     public int leaves(Node<E> node) {
@@ -309,38 +314,207 @@ public class BinaryTree<E> implements Serializable {
 
     // returns the height of tree
     public int getHeight() {
-        return getHeight(root);
+        return survey(false, false).getHeight();
     }
 
-    private int getHeight(Node<E> node) {
+    public void defoliate() {
+        survey(true, false);
+    }
 
-        if (node == null)
-            return 0;
-        else {
-            return Math.max(getHeight(node.left), getHeight(node.right)) + 1;
+    // removes all leaves below node
+    public void defoliate(Node<E> node) {
+        if (node != null) {
+            walk(node, 0, true, -1, null, new Shape());
         }
     }
 
-    public void defoliate() {
-        defoliate(root);
+    /**
+     * The shape of a tree as measured by survey: its leaf count,
+     * its height and the number of nodes at each depth.
+     */
+    public static class Shape {
+
+        /**
+         * Number of leaves seen.
+         */
+        private int leaves;
+        /**
+         * Number of nodes at each depth; the root is at depth 0.
+         */
+        private int[] levels = new int[8];
+        /**
+         * Number of depths that hold at least one node.
+         */
+        private int height;
+
+        /**
+         * @return The number of leaves
+         */
+        public int getLeaves() {
+            return leaves;
+        }
+
+        /**
+         * @return The height of the tree, 0 if it is empty
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @param depth A depth, the root being at depth 0
+         * @return The number of nodes at that depth
+         */
+        public int getNodesAtDepth(int depth) {
+            return depth < height ? levels[depth] : 0;
+        }
+
+        /**
+         * @return The total number of nodes
+         */
+        public int getNodes() {
+            int total = 0;
+            for (int i = 0; i < height; i++) {
+                total += levels[i];
+            }
+            return total;
+        }
+
+        private void count(int depth, int nodes) {
+            if (depth >= levels.length) {
+                levels = Arrays.copyOf(levels, Math.max(depth + 1, levels.length * 2));
+            }
+            levels[depth] += nodes;
+            height = Math.max(height, depth + 1);
+        }
+
+        private Shape merge(Shape other) {
+            leaves += other.leaves;
+            for (int i = 0; i < other.height; i++) {
+                count(i, other.levels[i]);
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "leaves=" + leaves + " height=" + height
+                    + " levels=" + Arrays.toString(Arrays.copyOf(levels, height));
+        }
     }
 
-    // removes all leaves from tree
-    public void defoliate(Node<E> node) {
-        if (node.left != null) {
-            if (isLeaf()) {
-                node.left = null;
-            } else
-                defoliate(node.left);
-        }
-        if (node.right != null) {
-            if (isLeaf()) {
-                node.right = null;
-            } else
-                defoliate(node.right);
+    /**
+     * Measure the tree in a single iterative level-order pass, optionally
+     * removing every leaf during the same pass. The shape describes the
+     * tree as it was before pruning.
+     *
+     * @param prune    true to remove all leaves, as defoliate does
+     * @param parallel true to walk disjoint subtrees on the common
+     *                 fork/join pool
+     * @return The leaf count, height and per-depth node counts
+     */
+    public Shape survey(boolean prune, boolean parallel) {
+        Shape shape = new Shape();
+        if (root == null) {
+            return shape;
+        }
+        boolean rootIsLeaf = root.left == null && root.right == null;
+        if (!parallel) {
+            walk(root, 0, prune, -1, null, shape);
+        } else {
+            // Walk the top of the tree here and hand each subtree below
+            // the frontier to its own task; subtrees share no nodes.
+            // The frontier depth is the bit length of the CPU count plus 2,
+            // so a full tree has 4 to 8 subtrees per CPU there.
+            int frontierDepth = 34 - Integer.numberOfLeadingZeros(
+                    Runtime.getRuntime().availableProcessors());
+            List<Node<E>> frontier = new ArrayList<Node<E>>();
+            walk(root, 0, prune, frontierDepth, frontier, shape);
+            if (!frontier.isEmpty()) {
+                shape.merge(ForkJoinPool.commonPool().invoke(
+                        new SurveyTask<E>(frontier, 0, frontier.size(), frontierDepth, prune)));
+            }
+        }
+        if (prune && rootIsLeaf) {
+            root = null;
         }
+        return shape;
     }
-} // end of class
 
+    /**
+     * Task that surveys frontier[from..to), each a subtree whose root is
+     * at depth, by splitting the range in half until one subtree is left.
+     */
+    private static class SurveyTask<E> extends RecursiveTask<Shape> {
+        private final List<Node<E>> frontier;
+        private final int from;
+        private final int to;
+        private final int depth;
+        private final boolean prune;
+
+        SurveyTask(List<Node<E>> frontier, int from, int to, int depth, boolean prune) {
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.prune = prune;
+        }
 
+        @Override
+        protected Shape compute() {
+            if (to - from == 1) {
+                Shape part = new Shape();
+                walk(frontier.get(from), depth, prune, -1, null, part);
+                return part;
+            }
+            int mid = (from + to) >>> 1;
+            SurveyTask<E> left = new SurveyTask<E>(frontier, from, mid, depth, prune);
+            left.fork();
+            Shape right = new SurveyTask<E>(frontier, mid, to, depth, prune).compute();
+            return right.merge(left.join());
+        }
+    }
 
+    /**
+     * Level-order walk of the subtree at start, which is at depth
+     * startDepth, counting into shape. When prune is set, each child that
+     * is a leaf is unlinked from its parent as the parent is visited; the
+     * child is still visited and counted. If frontier is not null, nodes
+     * reaching frontierDepth are added to it instead of being visited.
+     */
+    private static <E> void walk(Node<E> start, int startDepth, boolean prune,
+                                 int frontierDepth, List<Node<E>> frontier,
+                                 Shape shape) {
+        List<Node<E>> level = new ArrayList<Node<E>>();
+        level.add(start);
+        int depth = startDepth;
+        while (!level.isEmpty()) {
+            if (frontier != null && depth == frontierDepth) {
+                frontier.addAll(level);
+                return;
+            }
+            shape.count(depth, level.size());
+            List<Node<E>> next = new ArrayList<Node<E>>();
+            for (Node<E> node : level) {
+                if (node.left == null && node.right == null) {
+                    shape.leaves++;
+                    continue;
+                }
+                if (node.left != null) {
+                    next.add(node.left);
+                    if (prune && node.left.left == null && node.left.right == null) {
+                        node.left = null;
+                    }
+                }
+                if (node.right != null) {
+                    next.add(node.right);
+                    if (prune && node.right.left == null && node.right.right == null) {
+                        node.right = null;
+                    }
+                }
+            }
+            level = next;
+            depth++;
+        }
+    }
+} // end of class
@@ -0,0 +1,336 @@
+/**
+ * CachedSearchTree.java
+ *
+ * A bounded read-through lookup cache placed in front of any SearchTree
+ */
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A SearchTree wrapper that remembers the results of recent find calls
+ * so that repeated lookups of hot keys do not walk the tree from its root.
+ * The cache holds at most capacity entries and evicts with the CLOCK
+ * (second chance) policy. Every add, delete, remove and deletePrime made
+ * through this wrapper invalidates the affected key while holding the
+ * tree exclusively, so a concurrent find cannot cache a stale result.
+ * Lookups may be made by any number of concurrent readers, and a lookup
+ * answered from the cache takes no lock; mutations are serialized against
+ * lookups that reach the tree. Keys are matched with compareTo, as the
+ * tree matches them, so a mutation also drops a cached key that is not
+ * equals to the one given but compares equal to it.
+ */
+public class CachedSearchTree<E extends Comparable<E>> implements SearchTree<E> {
+
+    /**
+     * A cached key and the value found for it, published as one object
+     * so that a reader never sees the key of one entry with the value
+     * of another.
+     */
+    private static class Entry<E> {
+        final E key;
+        final E value;
+
+        Entry(E key, E value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Data Fields
+
+    /**
+     * The tree that holds the real contents.
+     */
+    private final SearchTree<E> tree;
+    /**
+     * Guards the tree: readers share it, mutators hold it exclusively.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Maps a cached key to its slot in the clock, ordered by compareTo.
+     */
+    private final ConcurrentSkipListMap<E, Integer> index;
+    /**
+     * The entry held in each slot of the clock, null if the slot is free.
+     */
+    private final AtomicReferenceArray<Entry<E>> slots;
+    /**
+     * Reference bits (1 or 0) giving each slot a second chance before
+     * eviction.
+     */
+    private final AtomicIntegerArray referenced;
+    /**
+     * Serializes fills and invalidations, which move the clock hand.
+     */
+    private final Object clockLock = new Object();
+    /**
+     * The slot the clock hand will examine next; guarded by clockLock.
+     */
+    private int hand;
+    /**
+     * Number of find calls answered from the cache. A LongAdder spreads
+     * concurrent increments over several cells instead of one hot one.
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * Number of find calls that had to search the tree.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    // Constructors
+
+    /**
+     * Construct a cache of the given capacity in front of tree.
+     *
+     * @param tree     The tree whose lookups are cached
+     * @param capacity The maximum number of cached keys
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public CachedSearchTree(SearchTree<E> tree, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.tree = tree;
+        index = new ConcurrentSkipListMap<E, Integer>();
+        slots = new AtomicReferenceArray<Entry<E>>(capacity);
+        referenced = new AtomicIntegerArray(capacity);
+    }
+
+    // Methods
+
+    /**
+     * Find an object in the tree, consulting the cache first.
+     *
+     * @param target The item being sought
+     * @return The object in the tree that compares equal to target,
+     * or null if it is not in the tree
+     */
+    @Override
+    public E find(E target) {
+        E cached = lookup(target);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        lock.readLock().lock();
+        try {
+            E result = tree.find(target);
+            if (result != null) {
+                // Filled while holding the read lock so that no mutation
+                // can slip in between the tree search and the fill.
+                store(target, result);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Determine if an item is in the tree
+     *
+     * @param target Item being sought in tree
+     * @return true If the item is in the tree, false otherwise
+     */
+    @Override
+    public boolean contains(E target) {
+        return find(target) != null;
+    }
+
+    /**
+     * Inserts item into the underlying tree.
+     *
+     * @param item The item to be inserted
+     * @return true If the item is inserted, false if the
+     * item was already in the tree.
+     */
+    @Override
+    public boolean add(E item) {
+        lock.writeLock().lock();
+        try {
+            invalidate(item);
+            return tree.add(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes target from the underlying tree.
+     *
+     * @param target Item to be removed
+     * @return The object removed from the tree or null if not found
+     */
+    @Override
+    public E delete(E target) {
+        lock.writeLock().lock();
+        try {
+            invalidate(target);
+            return tree.delete(target);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes target from the underlying tree.
+     *
+     * @param target Item to be removed
+     * @return true if the object was in the tree, false otherwise
+     */
+    @Override
+    public boolean remove(E target) {
+        lock.writeLock().lock();
+        try {
+            invalidate(target);
+            return tree.remove(target);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes target from the underlying tree with
+     * BinarySearchTree.deletePrime.
+     *
+     * @param target Item to be removed
+     * @return The object removed from the tree or null if not found
+     * @throws UnsupportedOperationException if the underlying tree is
+     *                                       not a BinarySearchTree
+     */
+    public E deletePrime(E target) {
+        if (!(tree instanceof BinarySearchTree)) {
+            throw new UnsupportedOperationException("deletePrime needs a BinarySearchTree");
+        }
+        lock.writeLock().lock();
+        try {
+            invalidate(target);
+            return ((BinarySearchTree<E>) tree).deletePrime(target);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the cached entry whose key compares equal to key, if any.
+     * Must be called with the write lock held.
+     *
+     * @param key The key whose entry is discarded
+     */
+    private void invalidate(E key) {
+        synchronized (clockLock) {
+            Integer slot = index.remove(key);
+            if (slot != null) {
+                slots.set(slot, null);
+                referenced.set(slot, 0);
+            }
+        }
+    }
+
+    /**
+     * Drop every cached entry.
+     */
+    public void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            synchronized (clockLock) {
+                index.clear();
+                for (int i = 0; i < slots.length(); i++) {
+                    slots.set(i, null);
+                    referenced.set(i, 0);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of find calls answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of find calls that searched the tree
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The fraction of find calls answered from the cache,
+     * or 0 if there have been none
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Return the cached value for key and mark its slot as referenced.
+     * Takes no lock. The slot found in the index may have been reused
+     * for another key since, so the entry's key is checked.
+     *
+     * @param key The key being sought
+     * @return The cached value or null if key is not cached
+     */
+    private E lookup(E key) {
+        Integer slot = index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        Entry<E> entry = slots.get(slot);
+        if (entry == null || entry.key.compareTo(key) != 0) {
+            return null;
+        }
+        // Only write the bit when it changes, so hot hits on the same
+        // slot do not keep invalidating each other's cache line.
+        if (referenced.get(slot) == 0) {
+            referenced.set(slot, 1);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Cache value under key, evicting with the clock if the cache is full.
+     *
+     * @param key   The key that was sought
+     * @param value The value found in the tree
+     */
+    private void store(E key, E value) {
+        synchronized (clockLock) {
+            if (index.containsKey(key)) {
+                return;
+            }
+            // Advance the hand, clearing reference bits, until a free or
+            // unreferenced slot is found. Readers may set bits again behind
+            // the hand, so give up after two sweeps and take the slot under
+            // the hand.
+            for (int step = 0; step < 2 * slots.length(); step++) {
+                if (slots.get(hand) == null || referenced.get(hand) == 0) {
+                    break;
+                }
+                referenced.set(hand, 0);
+                hand = (hand + 1) % slots.length();
+            }
+            Entry<E> victim = slots.get(hand);
+            if (victim != null) {
+                index.remove(victim.key);
+            }
+            // Publish the entry before the index points at it.
+            slots.set(hand, new Entry<E>(key, value));
+            referenced.set(hand, 0);
+            index.put(key, hand);
+            hand = (hand + 1) % slots.length();
+        }
+    }
+} // end of class
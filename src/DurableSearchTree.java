@@ -0,0 +1,969 @@
+/**
+ * DurableSearchTree.java
+ *
+ * A BinarySearchTree whose changes are recorded in a write-ahead log so that
+ * its contents survive a crash
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A SearchTree kept in memory as a BinarySearchTree and made durable by a
+ * write-ahead log. Each add, delete or remove that changes the tree first
+ * appends a record to the log and then changes the tree. It returns only
+ * after its record has been forced to disk, so a crash never loses a change
+ * that a caller has seen succeed. Callers that arrive while a force is in
+ * progress have their records written together by the next force (group
+ * commit), so concurrent writers share one fsync. If writing the log fails,
+ * every change not yet on disk is rolled back, the callers waiting for them
+ * get an UncheckedIOException, and the tree refuses further changes.
+ * Readers may see a change while its record is still being forced.
+ * <p>
+ * After snapshotEvery records a background thread starts a new log file,
+ * copies the tree in small steps, writes the copy to a snapshot file and
+ * deletes the older log files. On construction the last snapshot is loaded
+ * and the logs written since it are replayed.
+ * <p>
+ * A directory may be open in only one DurableSearchTree at a time, in this
+ * or any other process. The constructor locks the file tree.lock in it
+ * and close releases the lock.
+ */
+public class DurableSearchTree<E extends Comparable<E>> implements SearchTree<E> {
+
+    /**
+     * Writes and reads single items in the log and the snapshot.
+     */
+    public interface Codec<E> {
+
+        /**
+         * Write item to out.
+         *
+         * @param item The item to be written
+         * @param out  The destination
+         * @throws IOException If there is an output error
+         */
+        void write(E item, DataOutput out) throws IOException;
+
+        /**
+         * Read an item written by write.
+         *
+         * @param in The source
+         * @return The item read
+         * @throws IOException If there is an input error
+         */
+        E read(DataInput in) throws IOException;
+    }
+
+    /**
+     * A logged change whose record is not yet known to be on disk.
+     */
+    private static class Change<E> {
+        final byte op;
+        final E item;
+        final long seq;
+
+        Change(byte op, E item, long seq) {
+            this.op = op;
+            this.item = item;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Record type for an item added to the tree.
+     */
+    private static final byte ADD = 1;
+    /**
+     * Record type for an item deleted from the tree.
+     */
+    private static final byte DELETE = 2;
+    /**
+     * Bytes in a record header: payload length and CRC32 of the payload.
+     */
+    private static final int HEADER = 8;
+    /**
+     * Number of items a snapshot copies while holding the lock.
+     */
+    private static final int SNAPSHOT_STEP = 1024;
+    /**
+     * File name prefix of the logs; the generation number follows it.
+     */
+    private static final String LOG_PREFIX = "tree.wal.";
+
+    // Data Fields
+
+    /**
+     * The in-memory contents.
+     */
+    private final BinarySearchTree<E> tree;
+    /**
+     * Converts items to and from bytes.
+     */
+    private final Codec<E> codec;
+    /**
+     * The directory holding the snapshot and the logs.
+     */
+    private final Path directory;
+    /**
+     * The last complete snapshot of the tree.
+     */
+    private final Path snapshotFile;
+    /**
+     * Number of records in the current log that triggers a snapshot.
+     */
+    private final int snapshotEvery;
+    /**
+     * Open channel to the lock file, kept open while the tree is open.
+     */
+    private final FileChannel lockChannel;
+    /**
+     * Held for the whole of a snapshot, so only one runs at a time.
+     */
+    private final Object snapshotLock = new Object();
+    /**
+     * Open channel to the current log, positioned at its end.
+     */
+    private FileChannel log;
+    /**
+     * Generation number of the current log.
+     */
+    private long generation;
+    /**
+     * Records appended but not yet handed to a force.
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /**
+     * Changes whose records are not yet on disk, oldest first.
+     */
+    private final List<Change<E>> undurable = new ArrayList<Change<E>>();
+    /**
+     * Sequence number of the last record appended.
+     */
+    private long appendedSeq;
+    /**
+     * Sequence number of the last record known to be on disk.
+     */
+    private long syncedSeq;
+    /**
+     * True while some caller is writing and forcing a batch.
+     */
+    private boolean syncing;
+    /**
+     * The error that stopped the log, or null.
+     */
+    private IOException failure;
+    /**
+     * True once close has been called.
+     */
+    private boolean closed;
+    /**
+     * Number of records in the current log.
+     */
+    private int recordsInLog;
+    /**
+     * True while a background snapshot is running.
+     */
+    private boolean snapshotting;
+
+    // Constructors
+
+    /**
+     * Open a durable tree stored in directory, recovering any contents
+     * left there by a previous run.
+     *
+     * @param directory     The directory holding the snapshot and logs
+     * @param codec         Converts items to and from bytes
+     * @param snapshotEvery Number of records between snapshots
+     * @throws IOException If the files cannot be read or created, a log
+     *                     other than the newest is corrupt, or another
+     *                     DurableSearchTree has the directory open
+     */
+    public DurableSearchTree(Path directory, Codec<E> codec, int snapshotEvery)
+            throws IOException {
+        if (snapshotEvery <= 0) {
+            throw new IllegalArgumentException("snapshotEvery must be positive: " + snapshotEvery);
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.codec = codec;
+        this.snapshotEvery = snapshotEvery;
+        snapshotFile = directory.resolve("tree.snapshot");
+        lockChannel = FileChannel.open(directory.resolve("tree.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        boolean opened = false;
+        try {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Held by another tree in this JVM.
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException(directory + " is open in another DurableSearchTree");
+            }
+            List<E> items = new ArrayList<E>();
+            generation = loadSnapshot(items);
+            tree = BinarySearchTree.buildBalanced(items);
+            recover();
+            opened = true;
+        } finally {
+            if (!opened) {
+                if (log != null) {
+                    log.close();
+                }
+                // Closing the channel also releases the lock.
+                lockChannel.close();
+            }
+        }
+    }
+
+    // Methods
+
+    /**
+     * Return a codec that stores each Integer in four bytes.
+     *
+     * @return A codec using DataOutput.writeInt
+     */
+    public static Codec<Integer> integerCodec() {
+        return new Codec<Integer>() {
+            @Override
+            public void write(Integer item, DataOutput out) throws IOException {
+                out.writeInt(item);
+            }
+
+            @Override
+            public Integer read(DataInput in) throws IOException {
+                return in.readInt();
+            }
+        };
+    }
+
+    /**
+     * Return a codec that stores each Long in eight bytes.
+     *
+     * @return A codec using DataOutput.writeLong
+     */
+    public static Codec<Long> longCodec() {
+        return new Codec<Long>() {
+            @Override
+            public void write(Long item, DataOutput out) throws IOException {
+                out.writeLong(item);
+            }
+
+            @Override
+            public Long read(DataInput in) throws IOException {
+                return in.readLong();
+            }
+        };
+    }
+
+    /**
+     * Return a codec that stores each String as its length in bytes
+     * followed by its UTF-8 encoding.
+     *
+     * @return A codec for strings of any length
+     */
+    public static Codec<String> stringCodec() {
+        return new Codec<String>() {
+            @Override
+            public void write(String item, DataOutput out) throws IOException {
+                byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * Return a codec that stores items with Java serialization.
+     * It works for any Serializable item but writes a whole object stream,
+     * about 80 bytes for an Integer, for every record. Use it only when
+     * integerCodec, longCodec, stringCodec or a codec of your own based on
+     * DataOutput does not apply.
+     *
+     * @return A codec using ObjectOutputStream
+     */
+    public static <E extends Serializable> Codec<E> serializingCodec() {
+        return new Codec<E>() {
+            @Override
+            public void write(E item, DataOutput out) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                oos.writeObject(item);
+                oos.close();
+                out.writeInt(bytes.size());
+                out.write(bytes.toByteArray());
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E read(DataInput in) throws IOException {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return (E) ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public synchronized E find(E target) {
+        return tree.find(target);
+    }
+
+    @Override
+    public synchronized boolean contains(E target) {
+        return tree.contains(target);
+    }
+
+    /**
+     * Logs and inserts item, returning once the record is on disk.
+     *
+     * @param item The item to be inserted
+     * @return true If the item is inserted, false if the
+     * item was already in the tree.
+     * @throws UncheckedIOException If the log cannot be written
+     */
+    @Override
+    public boolean add(E item) {
+        long seq;
+        synchronized (this) {
+            checkWritable();
+            if (tree.contains(item)) {
+                return false;
+            }
+            seq = append(ADD, item);
+            tree.add(item);
+        }
+        awaitDurable(seq);
+        return true;
+    }
+
+    /**
+     * Logs and removes target, returning once the record is on disk.
+     *
+     * @param target Item to be removed
+     * @return The object removed from the tree or null if not found
+     * @throws UncheckedIOException If the log cannot be written
+     */
+    @Override
+    public E delete(E target) {
+        long seq;
+        E found;
+        synchronized (this) {
+            checkWritable();
+            found = tree.find(target);
+            if (found == null) {
+                return null;
+            }
+            seq = append(DELETE, found);
+            tree.delete(target);
+        }
+        awaitDurable(seq);
+        return found;
+    }
+
+    /**
+     * Logs and removes target, returning once the record is on disk.
+     *
+     * @param target Item to be removed
+     * @return true if the object was in the tree, false otherwise
+     * @throws UncheckedIOException If the log cannot be written
+     */
+    @Override
+    public boolean remove(E target) {
+        return delete(target) != null;
+    }
+
+    /**
+     * Return the contents in ascending order.
+     *
+     * @return A list of the items in the tree
+     */
+    public synchronized List<E> toList() {
+        return tree.toList();
+    }
+
+    /**
+     * Throw if the tree can no longer be changed.
+     */
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException("tree is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("log failed earlier", failure);
+        }
+    }
+
+    /**
+     * Encode a record, add it to the pending batch and remember the change
+     * so that it can be rolled back. Called before the tree is changed, so
+     * a codec failure leaves the tree as it was. Starts a background
+     * snapshot when the current log is long enough.
+     *
+     * @param op   ADD or DELETE
+     * @param item The item added or deleted
+     * @return The sequence number of the record
+     */
+    private long append(byte op, E item) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeByte(op);
+            codec.write(item, data);
+            data.flush();
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        appendedSeq++;
+        undurable.add(new Change<E>(op, item, appendedSeq));
+        recordsInLog++;
+        if (recordsInLog >= snapshotEvery && !snapshotting) {
+            startBackgroundSnapshot();
+        }
+        return appendedSeq;
+    }
+
+    /**
+     * Wait until the record numbered seq is on disk. If no force is in
+     * progress, this caller writes and forces every pending record,
+     * including those of other callers, and wakes them when done.
+     *
+     * @param seq The sequence number of the caller's record
+     * @throws UncheckedIOException If the log cannot be written
+     */
+    private void awaitDurable(long seq) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                byte[] batch;
+                long batchEnd;
+                FileChannel channel;
+                synchronized (this) {
+                    while (syncedSeq < seq && failure == null && syncing) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (syncedSeq >= seq) {
+                        return;
+                    }
+                    if (failure != null) {
+                        throw new UncheckedIOException("log write failed", failure);
+                    }
+                    syncing = true;
+                    batch = pending.toByteArray();
+                    pending.reset();
+                    batchEnd = appendedSeq;
+                    channel = log;
+                }
+                commit(batch, batchEnd, channel);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Write and force one batch without holding the lock, then publish
+     * the result to the waiting callers.
+     *
+     * @param batch    The encoded records
+     * @param batchEnd The sequence number of the last record in batch
+     * @param channel  The log to write to
+     */
+    private void commit(byte[] batch, long batchEnd, FileChannel channel) {
+        IOException error = null;
+        long start = -1;
+        try {
+            start = channel.position();
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            syncing = false;
+            if (error == null) {
+                syncedSeq = batchEnd;
+                while (!undurable.isEmpty() && undurable.get(0).seq <= batchEnd) {
+                    undurable.remove(0);
+                }
+            } else {
+                fail(error, channel, start);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop the log after a write failure: cut off any partly written
+     * batch and undo, newest first, every change not on disk.
+     *
+     * @param error   The write failure
+     * @param channel The log that failed
+     * @param start   The length of the log before the batch, or -1
+     */
+    private void fail(IOException error, FileChannel channel, long start) {
+        failure = error;
+        if (start >= 0) {
+            try {
+                channel.truncate(start);
+            } catch (IOException e) {
+                // Recovery cuts off a torn tail anyway.
+            }
+        }
+        for (int i = undurable.size() - 1; i >= 0; i--) {
+            Change<E> change = undurable.get(i);
+            if (change.op == ADD) {
+                tree.delete(change.item);
+            } else {
+                tree.add(change.item);
+            }
+        }
+        undurable.clear();
+        pending.reset();
+    }
+
+    /**
+     * Start a snapshot on a daemon thread.
+     */
+    private void startBackgroundSnapshot() {
+        snapshotting = true;
+        Thread snapshotter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    // The logs are kept, so nothing is lost; the next
+                    // record past the threshold tries again.
+                    throw new UncheckedIOException(e);
+                } finally {
+                    synchronized (DurableSearchTree.this) {
+                        snapshotting = false;
+                    }
+                }
+            }
+        }, "DurableSearchTree-snapshot");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    /**
+     * Write the tree to the snapshot file and delete the logs it covers.
+     * Writers are held up only for short steps. A new log is started
+     * first, then the tree is copied SNAPSHOT_STEP items at a time. The
+     * copy is not taken at a single instant, but every change made after
+     * the new log started is in that log. Each record only sets whether
+     * its item is present and the last record for an item wins, so
+     * replaying the new log onto the copy gives the right contents.
+     * The snapshot is written to a temporary file and moved into place,
+     * so a crash leaves either the old or the new snapshot.
+     *
+     * @throws IOException If the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long newGeneration;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                checkWritable();
+                newGeneration = generation + 1;
+            }
+            // Create the new log and make its directory entry durable
+            // before any record can be forced into it. A crash from here
+            // until the switch below leaves it empty after a log that may
+            // end in a torn batch; recover allows for that.
+            FileChannel newLog = FileChannel.open(logFile(newGeneration),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                syncDirectory();
+            } catch (IOException e) {
+                newLog.close();
+                throw e;
+            }
+            FileChannel oldLog;
+            synchronized (this) {
+                // Do not switch logs under a batch being written.
+                while (syncing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        newLog.close();
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while starting a snapshot", e);
+                    }
+                }
+                oldLog = log;
+                log = newLog;
+                generation = newGeneration;
+                recordsInLog = 0;
+            }
+            oldLog.close();
+
+            List<E> items = new ArrayList<E>();
+            long copiedUpTo;
+            while (true) {
+                List<E> step;
+                synchronized (this) {
+                    E after = items.isEmpty() ? null : items.get(items.size() - 1);
+                    step = tree.toList(after, SNAPSHOT_STEP);
+                    copiedUpTo = appendedSeq;
+                }
+                items.addAll(step);
+                if (step.size() < SNAPSHOT_STEP) {
+                    break;
+                }
+            }
+            // The copy may hold changes whose records are still being
+            // forced. Wait for them, so that a failed force, which rolls
+            // them back, cannot leave them in the snapshot.
+            synchronized (this) {
+                while (syncedSeq < copiedUpTo && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while taking a snapshot", e);
+                    }
+                }
+                if (failure != null) {
+                    throw new IOException("log failed during snapshot", failure);
+                }
+            }
+
+            writeSnapshot(newGeneration, items);
+            for (Path old : logFiles()) {
+                if (generationOf(old) < newGeneration) {
+                    Files.delete(old);
+                }
+            }
+            syncDirectory();
+        }
+    }
+
+    /**
+     * Write items to the snapshot file, replacing it atomically.
+     *
+     * @param firstGeneration The oldest log not covered by the snapshot
+     * @param items           The items in ascending order
+     * @throws IOException If the snapshot cannot be written
+     */
+    private void writeSnapshot(long firstGeneration, List<E> items) throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeLong(firstGeneration);
+            data.writeInt(items.size());
+            for (E item : items) {
+                codec.write(item, data);
+            }
+            data.flush();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        } finally {
+            out.close();
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // Make the rename durable before the logs it replaces are deleted,
+        // or a power loss could keep the deletion and lose the rename.
+        syncDirectory();
+    }
+
+    /**
+     * Flush the directory entry changes (creations, renames and deletions)
+     * of the directory holding the snapshot and logs.
+     *
+     * @throws IOException If the directory cannot be synced
+     */
+    private void syncDirectory() throws IOException {
+        FileChannel dir;
+        try {
+            dir = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Some platforms, such as Windows, cannot open a directory;
+            // their file systems make renames durable themselves.
+            return;
+        }
+        try {
+            dir.force(true);
+        } finally {
+            dir.close();
+        }
+    }
+
+    /**
+     * Wait for outstanding writes and any running snapshot to finish, then
+     * close the log and unlock the directory. Later changes throw
+     * IllegalStateException.
+     *
+     * @throws IOException If the log cannot be closed
+     */
+    public void close() throws IOException {
+        synchronized (snapshotLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                // Every appended record has a caller that will force it.
+                while (syncing || (syncedSeq < appendedSeq && failure == null)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                try {
+                    log.close();
+                } finally {
+                    lockChannel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the path of the log with the given generation.
+     */
+    private Path logFile(long logGeneration) {
+        return directory.resolve(LOG_PREFIX + logGeneration);
+    }
+
+    /**
+     * Return the generation number in the name of a log file.
+     */
+    private static long generationOf(Path logFile) {
+        return Long.parseLong(logFile.getFileName().toString().substring(LOG_PREFIX.length()));
+    }
+
+    /**
+     * Return the log files in the directory, oldest first.
+     *
+     * @throws IOException If the directory cannot be read
+     */
+    private List<Path> logFiles() throws IOException {
+        List<Path> result = new ArrayList<Path>();
+        DirectoryStream<Path> entries = Files.newDirectoryStream(directory, LOG_PREFIX + "*");
+        try {
+            for (Path entry : entries) {
+                String suffix = entry.getFileName().toString().substring(LOG_PREFIX.length());
+                if (suffix.matches("[0-9]+")) {
+                    result.add(entry);
+                }
+            }
+        } finally {
+            entries.close();
+        }
+        Collections.sort(result, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                long ga = generationOf(a);
+                long gb = generationOf(b);
+                return ga < gb ? -1 : (ga == gb ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Load the snapshot file, if any.
+     *
+     * @param items Receives the items of the snapshot in ascending order
+     * @return The oldest log generation not covered by the snapshot
+     * @throws IOException If the snapshot cannot be read
+     */
+    private long loadSnapshot(List<E> items) throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(snapshotFile)));
+        long firstGeneration = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            items.add(codec.read(in));
+        }
+        return firstGeneration;
+    }
+
+    /**
+     * Replay the logs written since the snapshot and open the newest one
+     * for appending. Logs older than the snapshot were left behind by a
+     * crash after the snapshot was written, and are deleted. Empty logs
+     * at the end were created by a snapshot that crashed before switching
+     * to them, and are deleted too, so the log before them counts as the
+     * newest and may end in a torn batch.
+     *
+     * @throws IOException If a log cannot be read or is corrupt
+     *                     anywhere but at the end of the newest log
+     */
+    private void recover() throws IOException {
+        List<Path> logs = new ArrayList<Path>();
+        for (Path file : logFiles()) {
+            if (generationOf(file) < generation) {
+                Files.delete(file);
+            } else {
+                logs.add(file);
+            }
+        }
+        boolean deleted = false;
+        while (logs.size() > 1 && Files.size(logs.get(logs.size() - 1)) == 0) {
+            Files.delete(logs.remove(logs.size() - 1));
+            deleted = true;
+        }
+        if (deleted) {
+            syncDirectory();
+        }
+        for (int i = 0; i < logs.size(); i++) {
+            boolean newest = i == logs.size() - 1;
+            FileChannel channel = FileChannel.open(logs.get(i),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean keep = false;
+            try {
+                long valid = replay(channel);
+                if (valid < channel.size()) {
+                    if (!newest) {
+                        throw new IOException("corrupt record in " + logs.get(i));
+                    }
+                    // A torn tail of a batch that was being written.
+                    channel.truncate(valid);
+                    channel.force(true);
+                }
+                if (newest) {
+                    log = channel;
+                    generation = generationOf(logs.get(i));
+                    keep = true;
+                }
+            } finally {
+                if (!keep) {
+                    channel.close();
+                }
+            }
+        }
+        if (log == null) {
+            log = FileChannel.open(logFile(generation), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            syncDirectory();
+        }
+        log.position(log.size());
+    }
+
+    /**
+     * Apply every complete record in a log to the tree, stopping at the
+     * first torn or corrupt record.
+     *
+     * @param channel The log to read
+     * @return The length of the log up to the end of the last good record
+     * @throws IOException If the log cannot be read
+     */
+    private long replay(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        int valid = 0;
+        while (buffer.remaining() >= HEADER) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op;
+            E item;
+            try {
+                op = in.readByte();
+                item = codec.read(in);
+            } catch (EOFException e) {
+                break;
+            }
+            if (op == ADD) {
+                tree.add(item);
+            } else if (op == DELETE) {
+                tree.delete(item);
+            } else {
+                break;
+            }
+            valid = buffer.position();
+            recordsInLog++;
+        }
+        return valid;
+    }
+} // end of class
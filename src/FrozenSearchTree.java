@@ -0,0 +1,166 @@
+/**
+ * FrozenSearchTree.java
+ *
+ * An immutable search tree stored as an array in Eytzinger (breadth-first)
+ * order, produced by BinarySearchTree.freeze
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only search tree that keeps its items in one array laid out as a
+ * complete binary tree: the root is at index 1 and the children of index k
+ * are at 2k and 2k + 1. No nodes or child references are stored, so each
+ * item costs one array slot. Searches descend without branching on the
+ * comparison result and touch the top levels of the array, which stay in
+ * cache. It has no add, delete or remove; to change the contents, change
+ * the BinarySearchTree it was frozen from and freeze it again.
+ */
+public class FrozenSearchTree<E extends Comparable<E>> implements ReadOnlySearchTree<E>, Iterable<E> {
+    // Data Fields
+
+    /**
+     * The items in Eytzinger order; index 0 is unused.
+     */
+    private final Object[] items;
+    /**
+     * The number of items.
+     */
+    private final int size;
+
+    // Constructors
+
+    /**
+     * Construct a frozen tree holding the given items.
+     *
+     * @param sorted The items in strictly ascending order
+     */
+    public FrozenSearchTree(List<E> sorted) {
+        size = sorted.size();
+        items = new Object[size + 1];
+        Iterator<E> source = sorted.iterator();
+        // An inorder walk of the implicit tree visits the slots
+        // in ascending key order.
+        for (int k = first(); k != 0; k = next(k)) {
+            items[k] = source.next();
+        }
+    }
+
+    // Methods
+
+    /**
+     * @return The index of the smallest item, or 0 if there are none
+     */
+    private int first() {
+        if (size == 0) {
+            return 0;
+        }
+        int k = 1;
+        while (2 * k <= size) {
+            k = 2 * k;
+        }
+        return k;
+    }
+
+    /**
+     * Return the index of the inorder successor of index k.
+     *
+     * @param k The index of an item
+     * @return The index of the next larger item, or 0 if k is the largest
+     */
+    private int next(int k) {
+        if (2 * k + 1 <= size) {
+            // Leftmost item of the right subtree.
+            k = 2 * k + 1;
+            while (2 * k <= size) {
+                k = 2 * k;
+            }
+            return k;
+        }
+        // Climb while k is a right child, then once more.
+        return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E item(int k) {
+        return (E) items[k];
+    }
+
+    /**
+     * Find an object in the tree
+     *
+     * @param target The item being sought
+     * @return The object in the tree that compares equal to target,
+     * or null if it is not in the tree
+     */
+    @Override
+    public E find(E target) {
+        int k = 1;
+        while (k <= size) {
+            // Go right (add 1) exactly when items[k] < target.
+            k = 2 * k + (item(k).compareTo(target) >>> 31);
+        }
+        // Undo the trailing right moves and the last left move; k is then
+        // the smallest item not less than target, or 0 if there is none.
+        k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+        if (k != 0 && item(k).compareTo(target) == 0) {
+            return item(k);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean contains(E target) {
+        return find(target) != null;
+    }
+
+    /**
+     * @return The number of items in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the contents as a List of items in ascending order.
+     *
+     * @return The items in ascending order
+     */
+    public List<E> toList() {
+        List<E> result = new ArrayList<E>(size);
+        for (E item : this) {
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * Return an iterator over the items in ascending order.
+     *
+     * @return An iterator that does not support remove
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int k = first();
+
+            @Override
+            public boolean hasNext() {
+                return k != 0;
+            }
+
+            @Override
+            public E next() {
+                if (k == 0) {
+                    throw new NoSuchElementException();
+                }
+                E result = item(k);
+                k = FrozenSearchTree.this.next(k);
+                return result;
+            }
+        };
+    }
+} // end of class
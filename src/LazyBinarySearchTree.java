@@ -0,0 +1,631 @@
+/**
+ * LazyBinarySearchTree.java
+ *
+ * A BinarySearchTree whose deletions mark nodes as tombstones instead of
+ * restructuring the tree, with a background rebuild to clear them
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A binary search tree with lazy deletion. delete and deletePrime find the
+ * node holding the target and mark it as a tombstone; the tree is not
+ * restructured. find, contains and toList skip tombstones, and adding an
+ * item whose node is a tombstone revives the node. Once tombstones make up
+ * more than the given fraction of the nodes, a background thread builds a
+ * balanced tree of the live items and swaps it in as the new root.
+ * The thread copies the items a chunk at a time and replays the changes
+ * made meanwhile in batches, holding the tree's lock only for one chunk or
+ * one short final batch, so callers are never blocked for a whole copy.
+ * survey and defoliate keep the tombstones and the size right when they
+ * prune leaves. Every method that reads the tree is synchronized, since
+ * the rebuild thread replaces the root. The traversal strings leave out
+ * deleted items, and getLeftSubtree and getRightSubtree are not
+ * supported.
+ */
+public class LazyBinarySearchTree<E extends Comparable<E>> extends BinarySearchTree<E> {
+
+    /**
+     * Fewest tombstones that will start a rebuild, so that small trees
+     * do not start a thread for every delete.
+     */
+    private static final int MIN_TOMBSTONES = 16;
+    /**
+     * Number of nodes a rebuild copies each time it takes the lock.
+     */
+    private static final int COPY_STEP = 1024;
+    /**
+     * Most changes a rebuild replays while holding the lock; larger
+     * backlogs are replayed without it, a batch at a time.
+     */
+    private static final int REPLAY_STEP = 256;
+    /**
+     * Most batches a rebuild replays without the lock. Under sustained
+     * churn the backlog may never fall to REPLAY_STEP, so after this many
+     * the rest is replayed under the lock and the rebuild finishes.
+     */
+    private static final int REPLAY_ROUNDS = 8;
+
+    /**
+     * A change made while a rebuild was in progress.
+     */
+    private static class Change<E> {
+        final boolean add;
+        final E item;
+
+        Change(boolean add, E item) {
+            this.add = add;
+            this.item = item;
+        }
+    }
+
+    // Data Fields
+
+    /**
+     * The nodes that have been deleted but not yet removed.
+     */
+    private Set<Node<E>> tombstones = newTombstoneSet();
+    /**
+     * Number of live (not tombstoned) items.
+     */
+    private int size;
+    /**
+     * Fraction of tombstoned nodes above which a rebuild starts.
+     */
+    private final double threshold;
+    /**
+     * Changes made since the running rebuild started copying the items
+     * and not yet replayed, or null if no rebuild is running.
+     */
+    private List<Change<E>> changesDuringRebuild;
+
+    // Constructors
+
+    /**
+     * Construct an empty tree that rebuilds once a quarter of its nodes
+     * are tombstones.
+     */
+    public LazyBinarySearchTree() {
+        this(0.25);
+    }
+
+    /**
+     * Construct an empty tree with the given rebuild threshold.
+     *
+     * @param threshold Fraction of tombstoned nodes, between 0 and 1,
+     *                  above which the tree is rebuilt
+     */
+    public LazyBinarySearchTree(double threshold) {
+        if (threshold <= 0 || threshold >= 1) {
+            throw new IllegalArgumentException("threshold must be between 0 and 1: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    // Methods
+
+    private static <E> Set<Node<E>> newTombstoneSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Node<E>, Boolean>());
+    }
+
+    /**
+     * Find the node whose data compares equal to target, tombstoned or not.
+     *
+     * @param target The item being sought
+     * @return The node, or null if there is none
+     */
+    private Node<E> findNode(E target) {
+        Node<E> node = root;
+        while (node != null) {
+            int compResult = target.compareTo(node.data);
+            if (compResult == 0) {
+                return node;
+            }
+            node = compResult < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized E find(E target) {
+        Node<E> node = findNode(target);
+        if (node == null || tombstones.contains(node)) {
+            return null;
+        }
+        return node.data;
+    }
+
+    /**
+     * Inserts item, reviving its node if it was deleted.
+     *
+     * @param item The object being inserted
+     * @return true if the object is inserted, false
+     * if the object already exists in the tree
+     */
+    @Override
+    public synchronized boolean add(E item) {
+        Node<E> node = findNode(item);
+        if (node != null) {
+            if (!tombstones.remove(node)) {
+                return false;
+            }
+            node.data = item;
+        } else {
+            super.add(item);
+        }
+        size++;
+        record(true, item);
+        return true;
+    }
+
+    /**
+     * Marks the node holding target as deleted.
+     *
+     * @param target The object to be deleted
+     * @return The object deleted from the tree
+     * or null if the object was not in the tree
+     */
+    @Override
+    public synchronized E delete(E target) {
+        Node<E> node = findNode(target);
+        if (node == null || !tombstones.add(node)) {
+            return null;
+        }
+        size--;
+        record(false, node.data);
+        maybeRebuild();
+        return node.data;
+    }
+
+    /**
+     * Same as delete: with lazy deletion no successor is moved.
+     *
+     * @param target The object to be deleted
+     * @return The object deleted from the tree
+     * or null if the object was not in the tree
+     */
+    @Override
+    public synchronized E deletePrime(E target) {
+        return delete(target);
+    }
+
+    /**
+     * Return the live contents in ascending order.
+     *
+     * @return A list of the items that are not tombstones
+     */
+    @Override
+    public synchronized List<E> toList() {
+        List<E> result = new ArrayList<E>(size);
+        toList(result, root);
+        return result;
+    }
+
+    private void toList(List<E> result, Node<E> node) {
+        if (node == null) {
+            return;
+        }
+        toList(result, node.left);
+        if (!tombstones.contains(node)) {
+            result.add(node.data);
+        }
+        toList(result, node.right);
+    }
+
+    /**
+     * Return up to limit live items greater than after, in ascending order.
+     *
+     * @param after The item to start after, or null for the smallest
+     * @param limit The largest number of items to return
+     * @return The items found
+     */
+    @Override
+    public synchronized List<E> toList(E after, int limit) {
+        List<E> result = new ArrayList<E>();
+        while (result.size() < limit) {
+            int wanted = limit - result.size();
+            List<Node<E>> nodes = nodesAfter(after, wanted);
+            for (Node<E> node : nodes) {
+                if (!tombstones.contains(node)) {
+                    result.add(node.data);
+                }
+            }
+            if (nodes.size() < wanted) {
+                break;
+            }
+            after = nodes.get(nodes.size() - 1).data;
+        }
+        return result;
+    }
+
+    /**
+     * Survey the tree. When pruning, the live items among the removed
+     * leaves are no longer counted, and tombstones among them are
+     * forgotten.
+     *
+     * @param prune    true to remove all leaves, as defoliate does
+     * @param parallel true to walk disjoint subtrees on the common
+     *                 fork/join pool
+     * @return The leaf count, height and per-depth node counts
+     */
+    @Override
+    public synchronized Shape survey(boolean prune, boolean parallel) {
+        if (!prune) {
+            return super.survey(false, parallel);
+        }
+        List<Node<E>> removed = leavesBelow(root);
+        if (root != null && root.left == null && root.right == null) {
+            removed.add(root);
+        }
+        Shape shape = super.survey(true, parallel);
+        forget(removed);
+        return shape;
+    }
+
+    // removes all leaves from tree
+    @Override
+    public synchronized void defoliate() {
+        survey(true, false);
+    }
+
+    // removes all leaves below node
+    @Override
+    public synchronized void defoliate(Node<E> node) {
+        List<Node<E>> removed = leavesBelow(node);
+        super.defoliate(node);
+        forget(removed);
+    }
+
+    /**
+     * Return the leaves that are descendants of node, not counting node.
+     *
+     * @param node The root of the subtree, or null
+     * @return The leaves below node
+     */
+    private List<Node<E>> leavesBelow(Node<E> node) {
+        List<Node<E>> result = new ArrayList<Node<E>>();
+        Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+        if (node != null) {
+            stack.push(node);
+        }
+        while (!stack.isEmpty()) {
+            Node<E> next = stack.pop();
+            if (next.left == null && next.right == null) {
+                if (next != node) {
+                    result.add(next);
+                }
+            } else {
+                if (next.left != null) {
+                    stack.push(next.left);
+                }
+                if (next.right != null) {
+                    stack.push(next.right);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Account for nodes that have been unlinked from the tree: drop their
+     * tombstones, or count them as deleted if they were live.
+     *
+     * @param removed The unlinked nodes
+     */
+    private void forget(List<Node<E>> removed) {
+        for (Node<E> node : removed) {
+            if (!tombstones.remove(node)) {
+                size--;
+                record(false, node.data);
+            }
+        }
+    }
+
+    /**
+     * Return the data field of the root.
+     *
+     * @return the data field of the root
+     * or null if the root is null or deleted
+     */
+    @Override
+    public synchronized E getData() {
+        if (root == null || tombstones.contains(root)) {
+            return null;
+        }
+        return root.data;
+    }
+
+    @Override
+    public synchronized boolean isLeaf() {
+        return super.isLeaf();
+    }
+
+    /**
+     * Not supported: the subtree would share nodes with this tree without
+     * its tombstones or its lock.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public BinaryTree<E> getLeftSubtree() {
+        throw new UnsupportedOperationException("subtrees of a lazy tree are not supported");
+    }
+
+    /**
+     * Not supported: the subtree would share nodes with this tree without
+     * its tombstones or its lock.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public BinaryTree<E> getRightSubtree() {
+        throw new UnsupportedOperationException("subtrees of a lazy tree are not supported");
+    }
+
+    /**
+     * Return the tree drawn in preorder, one node per line, indented by
+     * depth. A deleted node is drawn as (deleted) so that its children
+     * keep their places.
+     *
+     * @return The tree as a string
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        preOrderTraverse(root, 1, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Perform a preorder traversal, drawing deleted nodes as (deleted).
+     *
+     * @param node  The local root
+     * @param depth The depth
+     * @param sb    The string buffer to save the output
+     */
+    private void preOrderTraverse(Node<E> node, int depth, StringBuilder sb) {
+        for (int i = 1; i < depth; i++) {
+            sb.append("  ");
+        }
+        if (node == null) {
+            sb.append("null\n");
+        } else {
+            sb.append(tombstones.contains(node) ? "(deleted)" : node.toString());
+            sb.append("\n");
+            preOrderTraverse(node.left, depth + 1, sb);
+            preOrderTraverse(node.right, depth + 1, sb);
+        }
+    }
+
+    /**
+     * Return the live items in preorder, separated by spaces.
+     *
+     * @return A preorder traversal as a string
+     */
+    @Override
+    public synchronized String preorderToString() {
+        StringBuilder stb = new StringBuilder();
+        Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+        if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            appendLive(stb, node);
+            if (node.right != null) {
+                stack.push(node.right);
+            }
+            if (node.left != null) {
+                stack.push(node.left);
+            }
+        }
+        return stb.toString();
+    }
+
+    /**
+     * Return the live items in postorder, separated by spaces.
+     *
+     * @return A postorder traversal as a string
+     */
+    @Override
+    public synchronized String postorderToString() {
+        // Visit root, right, left, then reverse to get left, right, root.
+        List<Node<E>> order = new ArrayList<Node<E>>();
+        Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+        if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            Node<E> node = stack.pop();
+            order.add(node);
+            if (node.left != null) {
+                stack.push(node.left);
+            }
+            if (node.right != null) {
+                stack.push(node.right);
+            }
+        }
+        StringBuilder stb = new StringBuilder();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            appendLive(stb, order.get(i));
+        }
+        return stb.toString();
+    }
+
+    /**
+     * Return the live items in order, separated by spaces. With lazy
+     * deletion the shape of the tree says little about its contents, so
+     * unlike BinaryTree no parentheses are added.
+     *
+     * @return An inorder traversal as a string
+     */
+    @Override
+    public synchronized String inorderToString() {
+        StringBuilder stb = new StringBuilder();
+        for (E item : toList()) {
+            if (stb.length() > 0) {
+                stb.append(" ");
+            }
+            stb.append(item);
+        }
+        return stb.toString();
+    }
+
+    @Override
+    public synchronized String inOrderToString() {
+        return inorderToString();
+    }
+
+    /**
+     * Append the data of node, preceded by a space if stb is not empty,
+     * unless the node is deleted.
+     */
+    private void appendLive(StringBuilder stb, Node<E> node) {
+        if (tombstones.contains(node)) {
+            return;
+        }
+        if (stb.length() > 0) {
+            stb.append(" ");
+        }
+        stb.append(node);
+    }
+
+    /**
+     * @return The number of live items
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of deleted nodes still in the tree
+     */
+    public synchronized int tombstoneCount() {
+        return tombstones.size();
+    }
+
+    /**
+     * Rebuild the tree now on the calling thread, removing all tombstones.
+     */
+    public synchronized void purge() {
+        List<E> items = toList();
+        root = buildBalanced(items).root;
+        tombstones = newTombstoneSet();
+    }
+
+    /**
+     * Note a change for replay if a rebuild is running.
+     */
+    private void record(boolean add, E item) {
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(new Change<E>(add, item));
+        }
+    }
+
+    /**
+     * Start a background rebuild if there are enough tombstones and
+     * no rebuild is running.
+     */
+    private void maybeRebuild() {
+        int dead = tombstones.size();
+        if (changesDuringRebuild != null || dead < MIN_TOMBSTONES
+                || dead <= threshold * (dead + size)) {
+            return;
+        }
+        // Record every change from here on, so that items copied at
+        // different times are all brought up to date by the replay.
+        changesDuringRebuild = new ArrayList<Change<E>>();
+        Thread rebuilder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        }, "LazyBinarySearchTree-rebuild");
+        rebuilder.setDaemon(true);
+        rebuilder.start();
+    }
+
+    /**
+     * Build a balanced tree of the live items and swap it in. Runs on
+     * the rebuild thread and holds the lock only inside copyLive and for
+     * the final replay and swap. Each batch replayed without the lock
+     * holds the changes made while the previous one was replayed, so
+     * the backlog normally shrinks quickly; REPLAY_ROUNDS bounds it when
+     * it does not.
+     */
+    private void rebuild() {
+        List<E> items = new ArrayList<E>();
+        E after = null;
+        do {
+            after = copyLive(after, items);
+        } while (after != null);
+        BinarySearchTree<E> fresh = buildBalanced(items);
+        int count = items.size();
+        for (int round = 0; ; round++) {
+            List<Change<E>> batch;
+            synchronized (this) {
+                if (changesDuringRebuild.size() <= REPLAY_STEP || round == REPLAY_ROUNDS) {
+                    count = replay(fresh, changesDuringRebuild, count);
+                    changesDuringRebuild = null;
+                    root = fresh.root;
+                    tombstones = newTombstoneSet();
+                    size = count;
+                    return;
+                }
+                batch = changesDuringRebuild;
+                changesDuringRebuild = new ArrayList<Change<E>>();
+            }
+            count = replay(fresh, batch, count);
+        }
+    }
+
+    /**
+     * Append the live items among the next COPY_STEP nodes after after.
+     *
+     * @param after The item to start after, or null for the smallest
+     * @param items The list the live items are added to
+     * @return The last item examined, or null if no nodes remain
+     */
+    private synchronized E copyLive(E after, List<E> items) {
+        List<Node<E>> nodes = nodesAfter(after, COPY_STEP);
+        for (Node<E> node : nodes) {
+            if (!tombstones.contains(node)) {
+                items.add(node.data);
+            }
+        }
+        if (nodes.size() < COPY_STEP) {
+            return null;
+        }
+        return nodes.get(nodes.size() - 1).data;
+    }
+
+    /**
+     * Apply changes, in order, to a tree being rebuilt. Adding an item it
+     * already holds or deleting one it lacks does nothing, so a change
+     * that the copy already reflects is harmless.
+     *
+     * @param fresh   The tree being rebuilt
+     * @param changes The changes to apply
+     * @param count   The number of items in fresh before the changes
+     * @return The number of items in fresh after the changes
+     */
+    private static <E extends Comparable<E>> int replay(
+            BinarySearchTree<E> fresh, List<Change<E>> changes, int count) {
+        for (Change<E> change : changes) {
+            if (change.add) {
+                if (fresh.add(change.item)) {
+                    count++;
+                }
+            } else if (fresh.delete(change.item) != null) {
+                count--;
+            }
+        }
+        return count;
+    }
+} // end of class
@@ -0,0 +1,31 @@
+/**
+ * ReadOnlySearchTree.java
+ *
+ * The lookup half of SearchTree, for trees that cannot be changed
+ */
+
+/**
+ * Interface to define the queries of a search tree. SearchTree adds the
+ * methods that change the tree; a tree that is never changed, such as
+ * FrozenSearchTree, implements only this interface.
+ */
+public interface ReadOnlySearchTree<E extends Comparable<E>> {
+
+    /**
+     * Determine if an item is in the tree
+     *
+     * @param target Item being sought in tree
+     * @return true If the item is in the tree, false otherwise
+     */
+    boolean contains(E target);
+
+    /**
+     * Find an object in the tree
+     *
+     * @param target The item being sought
+     * @return A reference to the object in the tree that compares
+     * equal as determined by compareTo to the target. If not found
+     * null is returned.
+     */
+    E find(E target);
+}
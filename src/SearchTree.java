@@ -3,7 +3,7 @@
  *
  * @author Koffman and Wolfgang
  */
-public interface SearchTree<E extends Comparable<E>> {
+public interface SearchTree<E extends Comparable<E>> extends ReadOnlySearchTree<E> {
 
     /**
      * Inserts item where it belongs in the tree.
@@ -14,24 +14,6 @@ public interface SearchTree<E extends Comparable<E>> {
      */
     boolean add(E item);
 
-    /**
-     * Determine if an item is in the tree
-     *
-     * @param target Item being sought in tree
-     * @return true If the item is in the tree, false otherwise
-     */
-    boolean contains(E target);
-
-    /**
-     * Find an object in the tree
-     *
-     * @param target The item being sought
-     * @return A reference to the object in the tree that compares
-     * equal as determined by compareTo to the target. If not found
-     * null is returned.
-     */
-    E find(E target);
-
     /**
      * Removes target from tree.
      *
@@ -0,0 +1,431 @@
+/**
+ * ShardedSearchTree.java
+ *
+ * A SearchTree that range-partitions its keys across independent
+ * BinarySearchTrees so that writers to different ranges do not contend
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A SearchTree made of several shards. Shard i holds the keys that are at
+ * least bounds[i - 1] and less than bounds[i], so the shards taken in order
+ * hold the keys in ascending order. Each shard has its own lock, so
+ * operations on keys in different shards run in parallel. The boundaries
+ * are published as one immutable Layout; an operation reads the layout
+ * without locking, locks the shard it names, and starts again if, once the
+ * lock is held, the current layout sends the key to a different shard.
+ * <p>
+ * The boundaries are first chosen from a sample of keys. When the shards
+ * drift apart in size, rebalance moves one boundary at a time, locking
+ * only the two shards beside it, so operations on the other shards carry
+ * on. It runs by itself on a background thread when the sizes are skewed,
+ * and may also be called directly.
+ */
+public class ShardedSearchTree<E extends Comparable<E>> implements SearchTree<E> {
+
+    /**
+     * Number of changes to a shard between checks for skew; a power of 2.
+     */
+    private static final int CHECK_EVERY = 1024;
+
+    /**
+     * One partition of the keys. A shard keeps its identity when a
+     * boundary beside it moves; only its contents change.
+     */
+    private static class Shard<E extends Comparable<E>> {
+        /**
+         * Guards tree and changes.
+         */
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        /**
+         * The keys of this shard.
+         */
+        BinarySearchTree<E> tree = new BinarySearchTree<E>();
+        /**
+         * Number of keys in tree, written under the write lock and read
+         * without it.
+         */
+        volatile int size;
+        /**
+         * Number of changes made, for deciding when to check for skew.
+         */
+        int changes;
+    }
+
+    /**
+     * The boundaries in effect at one time, with the shards they split.
+     */
+    private static class Layout<E extends Comparable<E>> {
+        /**
+         * The smallest key of every shard but the first, in ascending order.
+         */
+        final List<E> bounds;
+        /**
+         * The shards, in key order; shared by every layout.
+         */
+        final List<Shard<E>> shards;
+
+        Layout(List<E> bounds, List<Shard<E>> shards) {
+            this.bounds = bounds;
+            this.shards = shards;
+        }
+
+        /**
+         * Return the shard that holds item, found by binary search of the
+         * boundaries.
+         *
+         * @param item The key being located
+         * @return Its shard
+         */
+        Shard<E> shardOf(E item) {
+            int low = 0;
+            int high = bounds.size();
+            // Find the number of boundaries that are <= item.
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (bounds.get(mid).compareTo(item) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return shards.get(low);
+        }
+    }
+
+    // Data Fields
+
+    /**
+     * The current layout. A boundary is moved only while the write locks
+     * of the two shards beside it are held, so while an operation holds
+     * a shard's lock, the keys that this layout sends to that shard stay
+     * the same.
+     */
+    private volatile Layout<E> layout;
+    /**
+     * True while a background rebalance is running.
+     */
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    // Constructors
+
+    /**
+     * Construct an empty tree with shards split at the given boundaries.
+     *
+     * @param bounds The smallest key of every shard but the first,
+     *               in strictly ascending order
+     */
+    public ShardedSearchTree(List<E> bounds) {
+        for (int i = 1; i < bounds.size(); i++) {
+            if (bounds.get(i - 1).compareTo(bounds.get(i)) >= 0) {
+                throw new IllegalArgumentException("bounds must be strictly ascending");
+            }
+        }
+        List<Shard<E>> shards = new ArrayList<Shard<E>>();
+        for (int i = 0; i <= bounds.size(); i++) {
+            shards.add(new Shard<E>());
+        }
+        layout = new Layout<E>(new ArrayList<E>(bounds), Collections.unmodifiableList(shards));
+    }
+
+    // Methods
+
+    /**
+     * Construct an empty tree with the given number of shards whose
+     * boundaries split the sample into equal parts.
+     *
+     * @param sample     Keys representative of those that will be added
+     * @param shardCount The number of shards wanted
+     * @return An empty sharded tree
+     */
+    public static <E extends Comparable<E>> ShardedSearchTree<E> fromSample(
+            List<E> sample, int shardCount) {
+        List<E> sorted = new ArrayList<E>(sample);
+        Collections.sort(sorted);
+        return new ShardedSearchTree<E>(chooseBounds(sorted, shardCount));
+    }
+
+    /**
+     * Pick up to shardCount - 1 distinct boundaries that split the sorted
+     * keys into parts of nearly equal size.
+     *
+     * @param sorted     Keys in ascending order
+     * @param shardCount The number of shards wanted
+     * @return The boundaries in strictly ascending order
+     */
+    private static <E extends Comparable<E>> List<E> chooseBounds(List<E> sorted, int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        List<E> result = new ArrayList<E>();
+        for (int i = 1; i < shardCount; i++) {
+            int at = (int) ((long) i * sorted.size() / shardCount);
+            if (at >= sorted.size()) {
+                break;
+            }
+            E bound = sorted.get(at);
+            if (result.isEmpty() || bound.compareTo(result.get(result.size() - 1)) > 0) {
+                result.add(bound);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public E find(E target) {
+        while (true) {
+            Shard<E> shard = layout.shardOf(target);
+            shard.lock.readLock().lock();
+            try {
+                if (layout.shardOf(target) == shard) {
+                    return shard.tree.find(target);
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(E target) {
+        return find(target) != null;
+    }
+
+    @Override
+    public boolean add(E item) {
+        while (true) {
+            Shard<E> shard = layout.shardOf(item);
+            boolean added;
+            boolean check = false;
+            shard.lock.writeLock().lock();
+            try {
+                if (layout.shardOf(item) != shard) {
+                    continue;
+                }
+                added = shard.tree.add(item);
+                if (added) {
+                    shard.size++;
+                    check = changed(shard);
+                }
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            if (check) {
+                maybeRebalance();
+            }
+            return added;
+        }
+    }
+
+    @Override
+    public E delete(E target) {
+        while (true) {
+            Shard<E> shard = layout.shardOf(target);
+            E deleted;
+            boolean check = false;
+            shard.lock.writeLock().lock();
+            try {
+                if (layout.shardOf(target) != shard) {
+                    continue;
+                }
+                deleted = shard.tree.delete(target);
+                if (deleted != null) {
+                    shard.size--;
+                    check = changed(shard);
+                }
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            if (check) {
+                maybeRebalance();
+            }
+            return deleted;
+        }
+    }
+
+    @Override
+    public boolean remove(E target) {
+        return delete(target) != null;
+    }
+
+    /**
+     * Return the contents of every shard as one List in ascending order.
+     * Each shard is read under its own lock, so the list is consistent per
+     * shard but not a single point-in-time view across shards. If a
+     * boundary moves while the shards are being read, the reading starts
+     * over, so no key is missed or repeated.
+     *
+     * @return The items in ascending order
+     */
+    public List<E> toList() {
+        while (true) {
+            Layout<E> l = layout;
+            List<E> result = new ArrayList<E>();
+            boolean moved = false;
+            for (int i = 0; i < l.shards.size() && !moved; i++) {
+                Shard<E> shard = l.shards.get(i);
+                shard.lock.readLock().lock();
+                try {
+                    moved = l != layout;
+                    result.addAll(shard.tree.toList());
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+            if (!moved) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Return the number of items in each shard, in shard order. Takes no
+     * lock; each count is exact at the moment it is read.
+     *
+     * @return The shard sizes
+     */
+    public List<Integer> shardSizes() {
+        List<Integer> result = new ArrayList<Integer>();
+        for (Shard<E> shard : layout.shards) {
+            result.add(shard.size);
+        }
+        return result;
+    }
+
+    /**
+     * Count a change to shard. Must be called with its write lock held.
+     *
+     * @param shard The shard that was changed
+     * @return true every CHECK_EVERY changes, when the caller should
+     * check for skew once it has released the lock
+     */
+    private static boolean changed(Shard<?> shard) {
+        return (++shard.changes & (CHECK_EVERY - 1)) == 0;
+    }
+
+    /**
+     * Start a background rebalance if the shard sizes are skewed and
+     * none is running.
+     */
+    private void maybeRebalance() {
+        if (isSkewed() && rebalancing.compareAndSet(false, true)) {
+            Thread rebalancer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebalance();
+                    } finally {
+                        rebalancing.set(false);
+                    }
+                }
+            }, "ShardedSearchTree-rebalance");
+            rebalancer.setDaemon(true);
+            rebalancer.start();
+        }
+    }
+
+    /**
+     * @return true if some shard holds more than twice the average number
+     * of items and at least CHECK_EVERY more than the average
+     */
+    private boolean isSkewed() {
+        List<Integer> sizes = shardSizes();
+        long total = 0;
+        int largest = 0;
+        for (int size : sizes) {
+            total += size;
+            largest = Math.max(largest, size);
+        }
+        long average = total / sizes.size();
+        return largest > 2 * average && largest - average >= CHECK_EVERY;
+    }
+
+    /**
+     * Even out the shard sizes by moving boundaries. Boundary i ideally
+     * has (i + 1) / shardCount of the items before it. Each step picks the
+     * boundary furthest from its ideal place and moves it as near to that
+     * place as the items of its two neighbouring shards allow. Only those
+     * two shards are locked during a step, and only for the time it takes
+     * to rebuild them. The steps stop once every boundary is within a
+     * quarter of the average shard size of its ideal place. Called on a
+     * background thread when the sizes become skewed.
+     */
+    public synchronized void rebalance() {
+        int shardCount = layout.shards.size();
+        // A boundary can only move within its two neighbours, so a surplus
+        // at one end takes about shardCount steps to spread across.
+        for (int step = 0; step < shardCount * shardCount; step++) {
+            List<Integer> sizes = shardSizes();
+            long total = 0;
+            for (int size : sizes) {
+                total += size;
+            }
+            int worst = -1;
+            long worstDistance = total / shardCount / 4;
+            long wanted = 0;
+            long before = 0;
+            for (int i = 0; i < shardCount - 1; i++) {
+                long ideal = (i + 1) * total / shardCount;
+                long distance = Math.abs(before + sizes.get(i) - ideal);
+                if (distance > worstDistance) {
+                    worst = i;
+                    worstDistance = distance;
+                    wanted = ideal - before;
+                }
+                before += sizes.get(i);
+            }
+            if (worst < 0 || !moveBoundary(worst, wanted)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move the boundary between shard i and shard i + 1 so that shard i
+     * holds as near to leftSize items as the two shards allow, rebuilding
+     * both balanced.
+     *
+     * @param i        The index of the left shard
+     * @param leftSize The number of items wanted in the left shard
+     * @return true if the boundary moved
+     */
+    private boolean moveBoundary(int i, long leftSize) {
+        Layout<E> l = layout;
+        Shard<E> left = l.shards.get(i);
+        Shard<E> right = l.shards.get(i + 1);
+        // Operations hold one shard lock at a time, so taking two in
+        // shard order cannot deadlock.
+        left.lock.writeLock().lock();
+        right.lock.writeLock().lock();
+        try {
+            List<E> items = left.tree.toList();
+            int oldLeftSize = items.size();
+            items.addAll(right.tree.toList());
+            // Keep at least one item on the left, so that the new boundary
+            // is greater than the one before it.
+            int split = (int) Math.max(1, Math.min(leftSize, items.size() - 1));
+            if (split == oldLeftSize || items.size() < 2) {
+                return false;
+            }
+            left.tree = BinarySearchTree.buildBalanced(items.subList(0, split));
+            left.size = split;
+            right.tree = BinarySearchTree.buildBalanced(items.subList(split, items.size()));
+            right.size = items.size() - split;
+            // items[split] is greater than every key left keeps and less
+            // than the boundary after right, so the bounds stay ascending.
+            List<E> newBounds = new ArrayList<E>(l.bounds);
+            newBounds.set(i, items.get(split));
+            layout = new Layout<E>(newBounds, l.shards);
+            return true;
+        } finally {
+            right.lock.writeLock().unlock();
+            left.lock.writeLock().unlock();
+        }
+    }
+} // end of class
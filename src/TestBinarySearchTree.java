@@ -1,3 +1,10 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -9,11 +16,11 @@ import java.util.Random;
  */
 public class TestBinarySearchTree {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         final int MAX_INT = 100;
 
-        BinarySearchTree tree = new BinarySearchTree();
+        BinarySearchTree<Integer> tree = new BinarySearchTree<Integer>();
 
         Random rand = new Random();
 
@@ -32,6 +39,79 @@ public class TestBinarySearchTree {
         System.out.println("InOrder toList: " + tree.toList());
         System.out.println("Contains 43: " + tree.contains(43));
         System.out.println("Find 99: " + tree.find(99));
+        System.out.println("Shape: " + tree.survey(false, false));
+
+        FrozenSearchTree<Integer> frozen = tree.freeze();
+        System.out.println("Frozen toList: " + frozen.toList());
+        System.out.println("Frozen contains 30: " + frozen.contains(30));
+
+        CachedSearchTree<Integer> cached = new CachedSearchTree<Integer>(tree, 4);
+        cached.find(30);
+        cached.find(30);
+        System.out.println("Cached find 30: " + cached.find(30));
+        System.out.println("Cached delete 30: " + cached.delete(30));
+        System.out.println("Cached find 30 after delete: " + cached.find(30));
+        cached.add(30);
+        cached.find(30);
+        System.out.println("Cached deletePrime 30: " + cached.deletePrime(30));
+        System.out.println("Cached find 30 after deletePrime: " + cached.find(30));
+        System.out.println("Cache hit ratio: " + cached.getHitRatio());
+
+        Path dir = Files.createTempDirectory("durable");
+        DurableSearchTree<Integer> durable = new DurableSearchTree<Integer>(
+                dir, DurableSearchTree.integerCodec(), 100);
+        for (int number : array) {
+            durable.add(number);
+        }
+        durable.snapshot();
+        durable.add(30);
+        durable.remove(array[0]);
+        System.out.println("Durable toList: " + durable.toList());
+        // Simulate a crash: close the tree, which unlocks the directory,
+        // and never use it again; then leave half a record at the end of
+        // the log as if the process had died while writing it.
+        durable.close();
+        DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "tree.wal.*");
+        for (Path log : logs) {
+            Files.write(log, new byte[]{0, 0, 0, 40, 1}, StandardOpenOption.APPEND);
+        }
+        logs.close();
+        DurableSearchTree<Integer> recovered = new DurableSearchTree<Integer>(
+                dir, DurableSearchTree.integerCodec(), 100);
+        System.out.println("Recovered toList: " + recovered.toList());
+        recovered.close();
+
+        List<Integer> sample = new ArrayList<Integer>();
+        for (int i = 0; i < MAX_INT; i += 10) {
+            sample.add(i);
+        }
+        ShardedSearchTree<Integer> sharded = ShardedSearchTree.fromSample(sample, 4);
+        for (int number : array) {
+            sharded.add(number);
+        }
+        sharded.add(30);
+        System.out.println("Sharded toList: " + sharded.toList());
+        System.out.println("Sharded find 30: " + sharded.find(30));
+        System.out.println("Shard sizes: " + sharded.shardSizes());
+        for (int i = 0; i < MAX_INT; i++) {
+            sharded.add(MAX_INT + i);
+        }
+        System.out.println("Shard sizes after adding above the last bound: " + sharded.shardSizes());
+        sharded.rebalance();
+        System.out.println("Shard sizes after rebalance: " + sharded.shardSizes());
+        System.out.println("Sharded contains 30: " + sharded.contains(30));
+
+        LazyBinarySearchTree<Integer> lazy = new LazyBinarySearchTree<Integer>();
+        for (int number : array) {
+            lazy.add(number);
+        }
+        lazy.add(30);
+        lazy.delete(30);
+        lazy.delete(array[0]);
+        System.out.println("Lazy toList: " + lazy.toList());
+        System.out.println("Lazy size: " + lazy.size() + ", tombstones: " + lazy.tombstoneCount());
+        lazy.purge();
+        System.out.println("Lazy after purge: " + lazy.toList() + ", tombstones: " + lazy.tombstoneCount());
     }
 
 } // end of class